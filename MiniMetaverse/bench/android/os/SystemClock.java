@@ -0,0 +1,6 @@
+package android.os;
+
+/** JDK stand-in so the plain Java parts of the client can run off-device. */
+public class SystemClock {
+	public static long uptimeMillis() { return System.nanoTime() / 1000000; }
+}
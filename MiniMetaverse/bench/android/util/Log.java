@@ -0,0 +1,17 @@
+package android.util;
+
+/** JDK stand-in so the plain Java parts of the client can run off-device. */
+public class Log {
+	public static boolean verbose = false;
+
+	public static int d(String tag, String msg) { return verbose ? print("D", tag, msg) : 0; }
+	public static int i(String tag, String msg) { return verbose ? print("I", tag, msg) : 0; }
+	public static int w(String tag, String msg) { return print("W", tag, msg); }
+	public static int e(String tag, String msg) { return print("E", tag, msg); }
+
+	private static int print(String level, String tag, String msg)
+	{
+		System.out.println(level + "/" + tag + ": " + msg);
+		return 0;
+	}
+}
@@ -0,0 +1,153 @@
+package com.zahndy.MiniMetaverse;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Ellipse2D;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Replays CoarseLocationUpdates for 100 avatars wandering around a region
+ * through AvatarPositions.update and reports time and heap allocated per
+ * update. An update that allocates a fresh copy of the positions (what the
+ * minimap did before the arrays were kept) is measured the same way for
+ * reference.
+ *
+ * The redraw cost is approximated with Java2D: the dots of one region are
+ * drawn into the dirty cell only, and into the whole 3x3 map, as a full
+ * invalidate() would. Canvas on a device is slower, the ratio is what counts.
+ *
+ * Runs on the plain JDK (HotSpot, for the allocation counter), from MiniMetaverse/:
+ *   javac -d /tmp/bench -sourcepath bench:src bench/com/zahndy/MiniMetaverse/CoarseLocationReplay.java
+ *   java -cp /tmp/bench com.zahndy.MiniMetaverse.CoarseLocationReplay [avatars] [updates]
+ */
+public class CoarseLocationReplay {
+
+	public static void main(String[] args) throws Exception
+	{
+		int avatars = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		int updates = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+
+		byte[][] frames = frames(avatars, 256);
+		long[] agents = new long[avatars * 2];
+		for (int i = 0; i < agents.length; i++)
+			agents[i] = 0x1234567800000000L + i;
+
+		com.sun.management.ThreadMXBean threads =
+				(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+
+		AvatarPositions positions = new AvatarPositions();
+		int changed = 0;
+		for (int pass = 0; pass < 2; pass++) { // the first pass warms up the JIT
+			changed = 0;
+			long bytes = threads.getThreadAllocatedBytes(thread);
+			long start = System.nanoTime();
+			for (int i = 0; i < updates; i++)
+				if (positions.update(avatars, frames[i % frames.length], avatars, agents, 0))
+					changed++;
+			long ns = System.nanoTime() - start;
+			bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+			if (pass == 1)
+				System.out.println(avatars + " avatars, " + updates + " updates through AvatarPositions.update: "
+						+ ns / updates + " ns and " + bytes / updates + " bytes per update, " + changed + " changed");
+		}
+
+		int sink = 0;
+		for (int pass = 0; pass < 2; pass++) {
+			long bytes = threads.getThreadAllocatedBytes(thread);
+			long start = System.nanoTime();
+			for (int i = 0; i < updates; i++)
+				sink += copy(avatars, frames[i % frames.length], agents).length;
+			long ns = System.nanoTime() - start;
+			bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+			if (pass == 1)
+				System.out.println("reference, fresh arrays per update:               "
+						+ ns / updates + " ns and " + bytes / updates + " bytes per update" + (sink < 0 ? "!" : ""));
+		}
+
+		redraw(positions, 480);
+	}
+
+	/** A random walk of the avatars, at most a metre per step as the simulator rounds it. */
+	private static byte[][] frames(int avatars, int count)
+	{
+		Random random = new Random(7);
+		int[] x = new int[avatars], y = new int[avatars], z = new int[avatars];
+		for (int i = 0; i < avatars; i++) {
+			x[i] = random.nextInt(256);
+			y[i] = random.nextInt(256);
+			z[i] = 5 + random.nextInt(10);
+		}
+		byte[][] frames = new byte[count][avatars * 3];
+		for (int f = 0; f < count; f++) {
+			for (int i = 0; i < avatars; i++) {
+				// about a third of them are walking at any time
+				if (random.nextInt(3) == 0) {
+					x[i] = Math.max(0, Math.min(255, x[i] + random.nextInt(3) - 1));
+					y[i] = Math.max(0, Math.min(255, y[i] + random.nextInt(3) - 1));
+				}
+				frames[f][i * 3] = (byte) x[i];
+				frames[f][i * 3 + 1] = (byte) y[i];
+				frames[f][i * 3 + 2] = (byte) z[i];
+			}
+		}
+		return frames;
+	}
+
+	private static short[] copy(int n, byte[] location, long[] agents)
+	{
+		short[] xyz = new short[n * 3];
+		long[] ids = new long[n * 2];
+		for (int i = 0; i < n; i++) {
+			xyz[i * 3] = (short) (location[i * 3] & 0xff);
+			xyz[i * 3 + 1] = (short) (location[i * 3 + 1] & 0xff);
+			xyz[i * 3 + 2] = (short) ((location[i * 3 + 2] & 0xff) * 4);
+			ids[i * 2] = agents[i * 2];
+			ids[i * 2 + 1] = agents[i * 2 + 1];
+		}
+		return ids.length > 0 ? xyz : null;
+	}
+
+	/** Java2D stand-in for MinimapView.onDraw: one dirty cell against the whole map. */
+	private static void redraw(AvatarPositions p, int size)
+	{
+		BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_USHORT_565_RGB);
+		Graphics2D g = image.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		int cell = size / 3;
+		int frames = 2000;
+		long dirty = 0, full = 0;
+		for (int pass = 0; pass < 2; pass++) {
+			long start = System.nanoTime();
+			for (int f = 0; f < frames; f++)
+				drawCell(g, p, cell, cell, cell);
+			dirty = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int f = 0; f < frames; f++)
+				for (int row = 0; row < 3; row++)
+					for (int col = 0; col < 3; col++)
+						drawCell(g, p, col * cell, row * cell, cell);
+			full = System.nanoTime() - start;
+		}
+		g.dispose();
+		System.out.println("Java2D redraw of " + p.count + " dots on a " + size + " px map: dirty cell "
+				+ dirty / frames / 1000 + " us, whole map " + full / frames / 1000 + " us per frame");
+	}
+
+	private static void drawCell(Graphics2D g, AvatarPositions p, int left, int top, int size)
+	{
+		g.setColor(new Color(30, 60, 90));
+		g.fillRect(left, top, size, size);
+		float scale = size / 256f;
+		float radius = Math.max(2f, scale * 3f);
+		Ellipse2D.Float dot = new Ellipse2D.Float();
+		for (int i = 0; i < p.count; i++) {
+			g.setColor(i == p.you ? Color.YELLOW : Color.GREEN);
+			dot.setFrame(left + p.x[i] * scale - radius, top + size - p.y[i] * scale - radius, radius * 2, radius * 2);
+			g.fill(dot);
+		}
+	}
+}
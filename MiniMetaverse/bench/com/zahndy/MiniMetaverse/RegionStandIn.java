@@ -0,0 +1,160 @@
+package com.zahndy.MiniMetaverse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Multi-region local stand-in for RegionManager: a grid of fake simulators
+ * whose UseCircuitCode handshake takes a configurable time. Walks an agent
+ * across the grid and reports the time from starting a crossing until the
+ * new region is ready for chat, with and without neighbour prefetch.
+ *
+ * Runs on the plain JDK, from MiniMetaverse/:
+ *   javac -d /tmp/bench -sourcepath bench:src bench/com/zahndy/MiniMetaverse/RegionStandIn.java
+ *   java -cp /tmp/bench com.zahndy.MiniMetaverse.RegionStandIn [handshakeMs] [movementMs] [dwellMs] [crossings]
+ */
+public class RegionStandIn {
+
+	private static final int SIZE = 4;
+
+	/** A fake simulator side that also checks no region is ever opened twice at once. */
+	static class FakeGrid implements RegionManager.Handshake {
+		final long handshakeMs;
+		final long movementMs;
+		final HashMap<Long, Integer> opening = new HashMap<Long, Integer>();
+		int maxConcurrent;
+		int opens;
+		int closes;
+
+		FakeGrid(long handshakeMs, long movementMs)
+		{
+			this.handshakeMs = handshakeMs;
+			this.movementMs = movementMs;
+		}
+
+		public void openCircuit(Region region) throws IOException
+		{
+			synchronized (this) {
+				Integer n = opening.get(region.handle);
+				int now = n == null ? 1 : n + 1;
+				opening.put(region.handle, now);
+				maxConcurrent = Math.max(maxConcurrent, now);
+				opens++;
+			}
+			try {
+				pause(handshakeMs);
+			} finally {
+				synchronized (this) {
+					opening.put(region.handle, opening.get(region.handle) - 1);
+				}
+			}
+		}
+
+		public void completeMovement(Region region) throws IOException
+		{
+			pause(movementMs);
+		}
+
+		public synchronized void closeCircuit(Region region)
+		{
+			closes++;
+		}
+
+		private static void pause(long ms) throws IOException
+		{
+			try {
+				Thread.sleep(ms);
+			} catch (InterruptedException e) {
+				throw new IOException("interrupted");
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		long handshakeMs = args.length > 0 ? Long.parseLong(args[0]) : 300;
+		long movementMs = args.length > 1 ? Long.parseLong(args[1]) : 30;
+		long dwellMs = args.length > 2 ? Long.parseLong(args[2]) : 500;
+		int crossings = args.length > 3 ? Integer.parseInt(args[3]) : 12;
+
+		System.out.println(SIZE + "x" + SIZE + " regions, handshake " + handshakeMs + " ms, movement "
+				+ movementMs + " ms, " + dwellMs + " ms in each region, " + crossings + " crossings");
+		walk(false, handshakeMs, movementMs, dwellMs, crossings);
+		walk(true, handshakeMs, movementMs, dwellMs, crossings);
+		dropAndPrefetchAgain(handshakeMs, movementMs);
+	}
+
+	static void walk(boolean prefetch, long handshakeMs, long movementMs, long dwellMs, int crossings) throws Exception
+	{
+		FakeGrid grid = new FakeGrid(handshakeMs, movementMs);
+		RegionManager manager = new RegionManager(grid, 4 * 1024 * 1024);
+		manager.setPrefetchEnabled(prefetch);
+		Region[][] regions = regions();
+		Random random = new Random(42);
+
+		int x = 1, y = 1;
+		manager.cross(regions[x][y]);
+		long total = 0, worst = 0;
+		for (int i = 0; i < crossings; i++) {
+			manager.setNeighbours(neighbours(regions, x, y));
+			Thread.sleep(dwellMs);
+			int nx, ny;
+			do {
+				nx = x + random.nextInt(3) - 1;
+				ny = y + random.nextInt(3) - 1;
+			} while ((nx == x && ny == y) || nx < 0 || ny < 0 || nx >= SIZE || ny >= SIZE);
+			x = nx;
+			y = ny;
+			long ms = manager.cross(regions[x][y]);
+			total += ms;
+			worst = Math.max(worst, ms);
+		}
+		manager.shutdown();
+		System.out.println((prefetch ? "with prefetch:    " : "without prefetch: ")
+				+ "crossing to chat-ready avg " + (total / crossings) + " ms, worst " + worst
+				+ " ms; " + grid.opens + " handshakes, " + grid.closes + " closes, "
+				+ "max concurrent handshakes per region " + grid.maxConcurrent);
+	}
+
+	/** Prefetch, drop, prefetch the same region again, then cross into it. */
+	static void dropAndPrefetchAgain(long handshakeMs, long movementMs) throws Exception
+	{
+		FakeGrid grid = new FakeGrid(handshakeMs, movementMs);
+		RegionManager manager = new RegionManager(grid, 0);
+		Region[][] regions = regions();
+		Region target = regions[2][1];
+		manager.setNeighbours(new Region[] { target });
+		Thread.sleep(handshakeMs / 3);
+		manager.setNeighbours(new Region[0]);
+		manager.setNeighbours(new Region[] { target });
+		manager.cross(target);
+		manager.shutdown();
+		System.out.println("drop and prefetch again: max concurrent handshakes per region "
+				+ grid.maxConcurrent + ", final state " + (target.getState() == Region.IDLE ? "IDLE" : "" + target.getState()));
+	}
+
+	private static Region[][] regions()
+	{
+		Region[][] regions = new Region[SIZE][SIZE];
+		int code = 1;
+		for (int x = 0; x < SIZE; x++)
+			for (int y = 0; y < SIZE; y++)
+				regions[x][y] = new Region(Region.toHandle(1000 + x, 1000 + y), "Sim" + x + y,
+						"127.0.0.1", 9000 + code, code++);
+		return regions;
+	}
+
+	private static Region[] neighbours(Region[][] regions, int x, int y)
+	{
+		ArrayList<Region> list = new ArrayList<Region>();
+		for (int dx = -1; dx <= 1; dx++)
+			for (int dy = -1; dy <= 1; dy++) {
+				int nx = x + dx, ny = y + dy;
+				if ((dx != 0 || dy != 0) && nx >= 0 && ny >= 0 && nx < SIZE && ny < SIZE)
+					list.add(regions[nx][ny]);
+			}
+		return list.toArray(new Region[list.size()]);
+	}
+}
@@ -0,0 +1,66 @@
+package com.zahndy.MiniMetaverse;
+
+/**
+ * Avatar positions in one region as sent in CoarseLocationUpdate. The arrays
+ * are kept between updates and only grow, so a steady stream of updates does
+ * not allocate.
+ */
+public class AvatarPositions {
+
+	public int count;
+	/** Index of our own avatar, or -1 when it is not in this region. */
+	public int you = -1;
+
+	/** Position in metres within the region; z is sent in steps of 4 m. */
+	public short[] x = new short[16];
+	public short[] y = new short[16];
+	public short[] z = new short[16];
+
+	/** Agent ids as two longs each, most significant half first; zero when not sent. */
+	public long[] ids = new long[32];
+
+	/**
+	 * Applies a CoarseLocationUpdate. location holds the X, Y, Z bytes of each
+	 * Location block back to back, agents the ids of the agentCount AgentData
+	 * blocks, which may be fewer than the Location blocks (or none at all on
+	 * older simulators). Returns whether anything visible changed.
+	 */
+	public boolean update(int n, byte[] location, int agentCount, long[] agents, int you)
+	{
+		n = Math.min(n, location.length / 3);
+		int known = Math.min(n, Math.min(agentCount, agents == null ? 0 : agents.length / 2));
+
+		if (n > x.length) {
+			int size = Math.max(n, x.length * 2);
+			x = new short[size];
+			y = new short[size];
+			z = new short[size];
+			ids = new long[size * 2];
+			count = -1; // force a redraw
+		}
+
+		boolean changed = n != count || you != this.you;
+		for (int i = 0; i < n; i++) {
+			short nx = (short)(location[i * 3] & 0xff);
+			short ny = (short)(location[i * 3 + 1] & 0xff);
+			short nz = (short)((location[i * 3 + 2] & 0xff) * 4);
+			if (nx != x[i] || ny != y[i] || nz != z[i]) {
+				x[i] = nx;
+				y[i] = ny;
+				z[i] = nz;
+				changed = true;
+			}
+			ids[i * 2] = i < known ? agents[i * 2] : 0;
+			ids[i * 2 + 1] = i < known ? agents[i * 2 + 1] : 0;
+		}
+		count = n;
+		this.you = you;
+		return changed;
+	}
+
+	public void clear()
+	{
+		count = 0;
+		you = -1;
+	}
+}
@@ -33,7 +33,11 @@ public class ChatActivity extends Activity {
             	say();
             }
         });
-        print("system: you are offline.");
+        SessionCache session = MiniMetaverse.getSession();
+        if (session != null && session.getRegionName() != null)
+        	print("system: last session was in " + session.getRegionName() + ", you are offline.");
+        else
+        	print("system: you are offline.");
     }
     
     public void say()
@@ -0,0 +1,26 @@
+package com.zahndy.MiniMetaverse;
+
+import android.app.Activity;
+import android.os.Bundle;
+
+public class MapActivity extends Activity {
+	
+	private static MinimapView minimap;
+	
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        
+        minimap = new MinimapView(this);
+        setContentView(minimap);
+        
+        SessionCache session = MiniMetaverse.getSession();
+        if (session != null && !session.isEmpty())
+        	minimap.setRegion(session.getRegionHandle());
+    }
+    
+    public static MinimapView getMinimap()
+    {
+    	return minimap;
+    }
+
+}
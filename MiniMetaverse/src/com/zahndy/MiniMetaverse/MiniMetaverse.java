@@ -1,9 +1,14 @@
 package com.zahndy.MiniMetaverse;
 
+import java.io.File;
+import java.io.IOException;
+
 import android.app.TabActivity;
 import android.content.Intent;
 import android.content.res.Resources;
 import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
 import android.widget.TabHost;
 
 import com.zahndy.MiniMetaverse.*;
@@ -12,10 +17,20 @@ import com.zahndy.MiniMetaverse.R;
 public class MiniMetaverse extends TabActivity {
 	
 	TabHost tabHost;
+	private static SessionCache session;
 	
 	
 	public void onCreate(Bundle savedInstanceState) {
 	    super.onCreate(savedInstanceState);
+	    final long start = SystemClock.uptimeMillis();
+	    // the activity is recreated on rotation, keep the one writer we have
+	    if (session == null) {
+	    	try {
+	    		session = SessionCache.open(new File(getFilesDir(), "session.bin"));
+	    	} catch (IOException e) {
+	    		Log.w("MiniMetaverse", "session cache unavailable: " + e.getMessage());
+	    	}
+	    }
 	    setContentView(R.layout.main);
 	    tabHost = getTabHost();
 	    Resources res = getResources(); // Resource object to get Drawables
@@ -39,17 +54,31 @@ public class MiniMetaverse extends TabActivity {
 	                  .setContent(intent);
 	    tabHost.addTab(spec);
 
+	    intent = new Intent().setClass(this, MapActivity.class);
+	    spec = tabHost.newTabSpec("map").setIndicator("Map",
+	                      res.getDrawable(R.drawable.ic_launcher))
+	                  .setContent(intent);
+	    tabHost.addTab(spec);
+
 	    intent = new Intent().setClass(this, SystemActivity.class);
 	    spec = tabHost.newTabSpec("system").setIndicator("System",
 	                      res.getDrawable(R.drawable.ic_tab_system))
 	                  .setContent(intent);
 	    tabHost.addTab(spec);
 
-	    tabHost.setCurrentTab(0);
-	    
-	    
+	    // with a cached session we can show chat right away and log in behind it
+	    final boolean resumed = session != null && !session.isEmpty();
+	    tabHost.setCurrentTab(resumed ? 1 : 0);
+	    tabHost.post(new Runnable() {
+	    	public void run() {
+	    		Log.d("MiniMetaverse", "interactive after " + (SystemClock.uptimeMillis() - start)
+	    				+ " ms" + (resumed ? " (from session cache)" : ""));
+	    	}
+	    });
 	}
 	
+	public static SessionCache getSession() { return session; }
+	
 	public void switchTab(int tab){
         tabHost.setCurrentTab(tab);
 	}
@@ -0,0 +1,212 @@
+package com.zahndy.MiniMetaverse;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.SystemClock;
+import android.view.View;
+
+/**
+ * Map of the current region and its eight neighbours with a dot for every
+ * avatar. Updates only mark the affected region dirty; the dirty area is
+ * redrawn at most FRAME_MS apart.
+ *
+ * Everything here runs on the UI thread. The nine cells are kept in arrays
+ * indexed by their offset from the centre, so updates and frames do not
+ * allocate.
+ */
+public class MinimapView extends View {
+
+	private static final long FRAME_MS = 100;
+	private static final int GRID = 3;
+
+	private final TileCache tiles = new TileCache(GRID * GRID * 2);
+
+	private AvatarPositions[] avatars = new AvatarPositions[GRID * GRID];
+	private AvatarPositions[] shifted = new AvatarPositions[GRID * GRID];
+	private final boolean[] kept = new boolean[GRID * GRID];
+	private final Bitmap[] cellTiles = new Bitmap[GRID * GRID];
+
+	private int centerX, centerY;
+
+	private final Rect dirty = new Rect();
+	private final Rect cell = new Rect();
+	private final Rect clip = new Rect();
+	private boolean scheduled;
+	private long lastFrame;
+
+	private final Paint background = new Paint();
+	private final Paint other = new Paint();
+	private final Paint self = new Paint();
+
+	private final Runnable frame = new Runnable() {
+		public void run() {
+			scheduled = false;
+			lastFrame = SystemClock.uptimeMillis();
+			invalidate(dirty);
+			dirty.setEmpty();
+		}
+	};
+
+	public MinimapView(Context context)
+	{
+		super(context);
+		for (int i = 0; i < avatars.length; i++)
+			avatars[i] = new AvatarPositions();
+		background.setColor(Color.rgb(30, 60, 90));
+		other.setColor(Color.GREEN);
+		other.setAntiAlias(true);
+		self.setColor(Color.YELLOW);
+		self.setAntiAlias(true);
+	}
+
+	/** For decoding tiles on a worker thread, see {@link TileCache#decode}. */
+	public TileCache getTiles() { return tiles; }
+
+	/** Centres the map on the given region, keeping the cells that stay in view. */
+	public void setRegion(long handle)
+	{
+		int newX = gridX(handle);
+		int newY = gridY(handle);
+		int dx = newX - centerX;
+		int dy = newY - centerY;
+		centerX = newX;
+		centerY = newY;
+
+		for (int i = 0; i < kept.length; i++)
+			kept[i] = false;
+		for (int row = 0; row < GRID; row++) {
+			for (int col = 0; col < GRID; col++) {
+				int oldCol = col + dx;
+				int oldRow = row - dy;
+				AvatarPositions p = null;
+				if (oldCol >= 0 && oldCol < GRID && oldRow >= 0 && oldRow < GRID) {
+					p = avatars[oldRow * GRID + oldCol];
+					kept[oldRow * GRID + oldCol] = true;
+				}
+				shifted[row * GRID + col] = p;
+			}
+		}
+		// regions that scrolled out of view make room for the new ones
+		int spare = 0;
+		for (int i = 0; i < shifted.length; i++) {
+			if (shifted[i] != null)
+				continue;
+			while (kept[spare])
+				spare++;
+			shifted[i] = avatars[spare++];
+			shifted[i].clear();
+		}
+		AvatarPositions[] t = avatars;
+		avatars = shifted;
+		shifted = t;
+
+		refreshTiles();
+		invalidate();
+	}
+
+	/**
+	 * Stores a tile from {@link TileCache#decode} and redraws its region.
+	 */
+	public void setTile(long handle, Bitmap decoded)
+	{
+		tiles.put(handle, decoded);
+		// a put may have recycled the bitmap of another cell
+		refreshTiles();
+		regionChanged(handle);
+	}
+
+	/** Feeds a CoarseLocationUpdate for a region, see {@link AvatarPositions#update}. */
+	public void onCoarseLocationUpdate(long handle, int n, byte[] location, int agentCount, long[] agents, int you)
+	{
+		int i = cellIndex(gridX(handle), gridY(handle));
+		if (i < 0)
+			return;
+		if (avatars[i].update(n, location, agentCount, agents, you))
+			regionChanged(handle);
+	}
+
+	/** Marks a region for redraw. */
+	public void regionChanged(long handle)
+	{
+		if (!cellBounds(gridX(handle), gridY(handle), cell))
+			return;
+		dirty.union(cell);
+		if (scheduled)
+			return;
+		scheduled = true;
+		long wait = lastFrame + FRAME_MS - SystemClock.uptimeMillis();
+		if (wait > 0)
+			postDelayed(frame, wait);
+		else
+			post(frame);
+	}
+
+	protected void onDraw(Canvas canvas)
+	{
+		if (!canvas.getClipBounds(clip))
+			clip.set(0, 0, getWidth(), getHeight());
+
+		for (int gx = centerX - 1; gx <= centerX + 1; gx++) {
+			for (int gy = centerY - 1; gy <= centerY + 1; gy++) {
+				if (!cellBounds(gx, gy, cell) || !Rect.intersects(cell, clip))
+					continue;
+				int i = cellIndex(gx, gy);
+				if (cellTiles[i] != null)
+					canvas.drawBitmap(cellTiles[i], null, cell, null);
+				else
+					canvas.drawRect(cell, background);
+				drawAvatars(canvas, avatars[i]);
+			}
+		}
+	}
+
+	private void drawAvatars(Canvas canvas, AvatarPositions p)
+	{
+		float scale = cell.width() / 256f;
+		float radius = Math.max(2f, scale * 3f);
+		for (int i = 0; i < p.count; i++) {
+			float px = cell.left + p.x[i] * scale;
+			float py = cell.bottom - p.y[i] * scale; // north is up
+			canvas.drawCircle(px, py, radius, i == p.you ? self : other);
+		}
+	}
+
+	/** Looks up the tiles of the visible cells; only on recentring or when a tile arrives. */
+	private void refreshTiles()
+	{
+		for (int gx = centerX - 1; gx <= centerX + 1; gx++)
+			for (int gy = centerY - 1; gy <= centerY + 1; gy++)
+				cellTiles[cellIndex(gx, gy)] = tiles.get(Region.toHandle(gx, gy));
+	}
+
+	/** Index of a region in the cell arrays, -1 when it is off the map. */
+	private int cellIndex(int gx, int gy)
+	{
+		int col = gx - centerX + 1;
+		int row = centerY + 1 - gy;
+		if (col < 0 || col >= GRID || row < 0 || row >= GRID)
+			return -1;
+		return row * GRID + col;
+	}
+
+	/** Screen rectangle of a region in the 3x3 grid, false when it is off the map. */
+	private boolean cellBounds(int gx, int gy, Rect out)
+	{
+		int i = cellIndex(gx, gy);
+		if (i < 0)
+			return false;
+		int col = i % GRID;
+		int row = i / GRID;
+		int size = Math.min(getWidth(), getHeight()) / GRID;
+		out.set(col * size, row * size, (col + 1) * size, (row + 1) * size);
+		return true;
+	}
+
+	private static int gridX(long handle) { return (int)(handle >>> 32) / 256; }
+
+	private static int gridY(long handle) { return (int)(handle & 0xffffffffL) / 256; }
+}
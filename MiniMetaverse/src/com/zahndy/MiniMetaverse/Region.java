@@ -0,0 +1,48 @@
+package com.zahndy.MiniMetaverse;
+
+/**
+ * A simulator the client knows about, either the one the agent stands in
+ * or one of its neighbours.
+ */
+public class Region {
+
+	public static final int IDLE = 0;
+	public static final int CONNECTING = 1;
+	public static final int CHILD = 2;
+	public static final int ROOT = 3;
+	public static final int FAILED = 4;
+
+	public final long handle;
+	public final String name;
+	public final String host;
+	public final int port;
+	public final int circuitCode;
+
+	volatile int state = IDLE;
+
+	public Region(long handle, String name, String host, int port, int circuitCode)
+	{
+		this.handle = handle;
+		this.name = name;
+		this.host = host;
+		this.port = port;
+		this.circuitCode = circuitCode;
+	}
+
+	public int getState() { return state; }
+
+	public int getGridX() { return (int)(handle >>> 32) / 256; }
+
+	public int getGridY() { return (int)(handle & 0xffffffffL) / 256; }
+
+	/** Region handles are the global south-west corner in metres, x in the high word. */
+	public static long toHandle(int gridX, int gridY)
+	{
+		return ((long)(gridX * 256) << 32) | ((long)(gridY * 256) & 0xffffffffL);
+	}
+
+	public String toString()
+	{
+		return name + " (" + getGridX() + ", " + getGridY() + ")";
+	}
+}
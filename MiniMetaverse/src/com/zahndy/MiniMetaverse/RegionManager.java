@@ -0,0 +1,312 @@
+package com.zahndy.MiniMetaverse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Keeps child agent circuits to the neighbouring regions open so a teleport
+ * or region crossing only has to send CompleteAgentMovement instead of the
+ * whole UseCircuitCode handshake, and keeps the scene data of recently
+ * visited regions around within a fixed memory budget.
+ */
+public class RegionManager {
+
+	private static final String TAG = "RegionManager";
+
+	/** The simulator side of a region change, implemented by the UDP client. */
+	public interface Handshake {
+		/** UseCircuitCode; afterwards the region is usable as a child agent. */
+		void openCircuit(Region region) throws IOException;
+		/** CompleteAgentMovement on a circuit that is already open. */
+		void completeMovement(Region region) throws IOException;
+		void closeCircuit(Region region);
+	}
+
+	private final Handshake handshake;
+	private final ExecutorService prefetcher = Executors.newFixedThreadPool(2);
+
+	private final HashMap<Long, Region> circuits = new HashMap<Long, Region>();
+	/** The latest prefetch per region handle, kept until its handshake has returned. */
+	private final HashMap<Long, Prefetch> pending = new HashMap<Long, Prefetch>();
+	private final LinkedHashMap<Long, byte[]> scenes = new LinkedHashMap<Long, byte[]>(16, 0.75f, true);
+
+	private final long sceneBudget;
+	private long sceneBytes;
+	private boolean prefetch = true;
+	private Region current;
+	private Region crossing;
+
+	public RegionManager(Handshake handshake, long sceneBudget)
+	{
+		this.handshake = handshake;
+		this.sceneBudget = sceneBudget;
+	}
+
+	public synchronized void setPrefetchEnabled(boolean enabled) { prefetch = enabled; }
+
+	public synchronized Region getCurrent() { return current; }
+
+	/**
+	 * Called whenever the simulator tells us about our neighbours. Circuits to
+	 * new neighbours are opened in the background, circuits to regions that are
+	 * no longer adjacent are closed.
+	 */
+	public void setNeighbours(Region[] neighbours)
+	{
+		ArrayList<Region> stale = new ArrayList<Region>();
+		synchronized (this) {
+			HashMap<Long, Region> keep = new HashMap<Long, Region>();
+			for (int i = 0; i < neighbours.length; i++)
+				keep.put(neighbours[i].handle, neighbours[i]);
+			if (current != null)
+				keep.put(current.handle, current);
+			if (crossing != null)
+				keep.put(crossing.handle, crossing);
+
+			for (Iterator<Region> it = circuits.values().iterator(); it.hasNext();) {
+				Region r = it.next();
+				if (!keep.containsKey(r.handle)) {
+					it.remove();
+					if (drop(r))
+						stale.add(r);
+				}
+			}
+
+			if (prefetch)
+				for (int i = 0; i < neighbours.length; i++)
+					prefetch(neighbours[i]);
+		}
+		// closing is network I/O, keep it out of the lock
+		for (int i = 0; i < stale.size(); i++)
+			handshake.closeCircuit(stale.get(i));
+	}
+
+	/** Starts the handshake for a likely destination, e.g. a teleport target the user picked. */
+	public synchronized void prefetch(Region region)
+	{
+		if (circuits.containsKey(region.handle))
+			return;
+		circuits.put(region.handle, region);
+		region.state = Region.CONNECTING;
+		Prefetch previous = pending.get(region.handle);
+		Prefetch p = new Prefetch(region, busy(previous) ? previous : null);
+		pending.put(region.handle, p);
+		p.future = prefetcher.submit(p);
+	}
+
+	/**
+	 * Moves the agent into the given region and returns the number of
+	 * milliseconds until the region was ready for chat.
+	 */
+	public long cross(Region target) throws IOException
+	{
+		long start = SystemClock.uptimeMillis();
+		boolean prefetched;
+		synchronized (this) {
+			// wait until no handshake for this region is running any more,
+			// including ones that were dropped but have not returned yet
+			while (busy(pending.get(target.handle))) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					throw new IOException("interrupted while connecting to " + target);
+				}
+			}
+			Region warm = circuits.get(target.handle);
+			prefetched = warm != null && warm.state == Region.CHILD;
+			if (prefetched) {
+				target = warm;
+			} else {
+				// claim the handle so no prefetch starts a second handshake
+				circuits.put(target.handle, target);
+				target.state = Region.CONNECTING;
+			}
+			crossing = target;
+		}
+
+		try {
+			if (!prefetched)
+				handshake.openCircuit(target);
+			handshake.completeMovement(target);
+		} catch (IOException e) {
+			synchronized (this) {
+				crossing = null;
+				target.state = Region.FAILED;
+				if (circuits.get(target.handle) == target)
+					circuits.remove(target.handle);
+			}
+			throw e;
+		}
+
+		synchronized (this) {
+			if (current != null && current != target)
+				current.state = Region.CHILD;
+			target.state = Region.ROOT;
+			circuits.put(target.handle, target);
+			current = target;
+			crossing = null;
+		}
+
+		long elapsed = SystemClock.uptimeMillis() - start;
+		Log.d(TAG, "crossed to " + target + " in " + elapsed + " ms" + (prefetched ? " (prefetched)" : ""));
+		return elapsed;
+	}
+
+	/** Remembers the decoded scene of a region, evicting the least recently visited ones. */
+	public synchronized void cacheScene(long handle, byte[] scene)
+	{
+		byte[] old = scenes.put(handle, scene);
+		if (old != null)
+			sceneBytes -= old.length;
+		sceneBytes += scene.length;
+
+		Iterator<Map.Entry<Long, byte[]>> it = scenes.entrySet().iterator();
+		while (sceneBytes > sceneBudget && it.hasNext()) {
+			Map.Entry<Long, byte[]> eldest = it.next();
+			if (eldest.getKey() == handle)
+				continue;
+			sceneBytes -= eldest.getValue().length;
+			it.remove();
+		}
+	}
+
+	public synchronized byte[] getScene(long handle)
+	{
+		return scenes.get(handle);
+	}
+
+	public void shutdown()
+	{
+		ArrayList<Region> open = new ArrayList<Region>();
+		synchronized (this) {
+			prefetcher.shutdownNow();
+			for (Region r : circuits.values())
+				if (drop(r))
+					open.add(r);
+			circuits.clear();
+			scenes.clear();
+			sceneBytes = 0;
+			current = null;
+		}
+		for (int i = 0; i < open.size(); i++)
+			handshake.closeCircuit(open.get(i));
+	}
+
+	/** Whether a prefetch or a dropped one before it is still inside the handshake. */
+	private static boolean busy(Prefetch p)
+	{
+		for (; p != null; p = p.previous)
+			if (!p.finished)
+				return true;
+		return false;
+	}
+
+	/**
+	 * Forgets a region that was removed from circuits, cancelling its prefetch.
+	 * Returns whether its circuit is open and has to be closed by the caller
+	 * once the lock is released; a handshake still running closes its own.
+	 */
+	private boolean drop(Region region)
+	{
+		Prefetch p = pending.get(region.handle);
+		if (p != null && p.region == region && !p.finished && !p.dropped) {
+			p.dropped = true;
+			if (!p.started) {
+				// it will never run, so nothing will mark it finished
+				p.finished = true;
+				notifyAll();
+			}
+			p.future.cancel(true);
+		}
+		boolean open = region.state == Region.CHILD || region.state == Region.ROOT;
+		region.state = Region.IDLE;
+		return open;
+	}
+
+	/** A background UseCircuitCode for one region. */
+	private class Prefetch implements Runnable {
+		final Region region;
+		/** A dropped handshake for the same region that may still be running. */
+		final Prefetch previous;
+		Future<?> future;
+		boolean started;
+		boolean dropped;
+		boolean finished;
+
+		Prefetch(Region region, Prefetch previous)
+		{
+			this.region = region;
+			this.previous = previous;
+		}
+
+		public void run()
+		{
+			synchronized (RegionManager.this) {
+				try {
+					while (busy(previous))
+						RegionManager.this.wait();
+				} catch (InterruptedException e) {
+					dropped = true;
+				}
+				if (dropped) {
+					finish();
+					return;
+				}
+				started = true;
+			}
+
+			boolean opened = false;
+			try {
+				handshake.openCircuit(region);
+				opened = true;
+			} catch (IOException e) {
+				Log.w(TAG, "prefetch of " + region + " failed: " + e.getMessage());
+			}
+
+			boolean orphaned;
+			synchronized (RegionManager.this) {
+				if (!dropped && circuits.get(region.handle) == region) {
+					if (opened) {
+						region.state = Region.CHILD;
+					} else {
+						region.state = Region.FAILED;
+						circuits.remove(region.handle);
+					}
+					orphaned = false;
+				} else {
+					// dropped while connecting; only close it if nobody else
+					// holds a circuit to the same region by now
+					orphaned = opened && circuits.get(region.handle) == null;
+				}
+				if (!orphaned)
+					finish();
+			}
+			if (orphaned) {
+				// still counts as running until the circuit is closed again
+				handshake.closeCircuit(region);
+				synchronized (RegionManager.this) {
+					finish();
+				}
+			}
+		}
+
+		/** Called with the manager locked. */
+		private void finish()
+		{
+			finished = true;
+			if (pending.get(region.handle) == this)
+				pending.remove(region.handle);
+			RegionManager.this.notifyAll();
+		}
+	}
+}
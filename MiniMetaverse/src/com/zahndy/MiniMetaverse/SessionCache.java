@@ -0,0 +1,315 @@
+package com.zahndy.MiniMetaverse;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Snapshot of the last session (grid, region, inventory skeleton, friends
+ * and display names) so the tabs can be filled in at startup while a fresh
+ * login runs in the background.
+ *
+ * The file is an append-only log of small binary records; every change is
+ * appended as it happens and a later record for the same key replaces the
+ * earlier one. On startup the file is memory-mapped and replayed, and it is
+ * rewritten once it holds mostly superseded records.
+ */
+public class SessionCache {
+
+	private static final int MAGIC = 0x4d4d5343; // "MMSC"
+	private static final byte VERSION = 1;
+	private static final int HEADER = 5;
+
+	private static final byte GRID = 1;
+	private static final byte REGION = 2;
+	private static final byte FOLDER = 3;
+	private static final byte FRIEND = 4;
+	private static final byte UNFRIEND = 5;
+	private static final byte DISPLAY_NAME = 6;
+
+	public static class Folder {
+		public final String id;
+		public final String parent;
+		public final String name;
+		public final int type;
+
+		Folder(String id, String parent, String name, int type)
+		{
+			this.id = id;
+			this.parent = parent;
+			this.name = name;
+			this.type = type;
+		}
+	}
+
+	private final File file;
+	private DataOutputStream out;
+	private int records;
+
+	private String grid;
+	private String regionName;
+	private long regionHandle;
+	private final HashMap<String, Folder> folders = new HashMap<String, Folder>();
+	private final HashMap<String, Integer> friends = new HashMap<String, Integer>();
+	private final HashMap<String, String> displayNames = new HashMap<String, String>();
+
+	private SessionCache(File file)
+	{
+		this.file = file;
+	}
+
+	/** Loads the snapshot in the given file, starting an empty one if it is missing or unreadable. */
+	public static SessionCache open(File file) throws IOException
+	{
+		SessionCache cache = new SessionCache(file);
+		long valid = cache.load();
+		if (valid < HEADER) {
+			cache.rewrite();
+		} else {
+			if (valid < file.length()) {
+				RandomAccessFile raf = new RandomAccessFile(file, "rw");
+				try {
+					raf.setLength(valid); // drop a record torn by a crash
+				} finally {
+					raf.close();
+				}
+			}
+			cache.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+		}
+		return cache;
+	}
+
+	public synchronized boolean isEmpty() { return grid == null; }
+
+	public synchronized String getGrid() { return grid; }
+
+	public synchronized String getRegionName() { return regionName; }
+
+	public synchronized long getRegionHandle() { return regionHandle; }
+
+	public synchronized Collection<Folder> getFolders() { return new HashMap<String, Folder>(folders).values(); }
+
+	public synchronized Map<String, Integer> getFriends() { return new HashMap<String, Integer>(friends); }
+
+	public synchronized String getDisplayName(String id) { return displayNames.get(id); }
+
+	public synchronized void setGrid(String uri) throws IOException
+	{
+		byte[] b = encode(uri);
+		grid = uri;
+		begin(GRID);
+		writeString(b);
+	}
+
+	public synchronized void setRegion(String name, long handle) throws IOException
+	{
+		byte[] b = encode(name);
+		regionName = name;
+		regionHandle = handle;
+		begin(REGION);
+		writeString(b);
+		out.writeLong(handle);
+	}
+
+	/** parent is null for the root folders. */
+	public synchronized void putFolder(String id, String parent, String name, int type) throws IOException
+	{
+		byte[] i = encode(id);
+		byte[] p = encode(parent == null ? "" : parent);
+		byte[] n = encode(name);
+		folders.put(id, new Folder(id, parent, name, type));
+		begin(FOLDER);
+		writeString(i);
+		writeString(p);
+		writeString(n);
+		out.writeByte(type);
+	}
+
+	public synchronized void putFriend(String id, int rights) throws IOException
+	{
+		byte[] b = encode(id);
+		friends.put(id, rights);
+		begin(FRIEND);
+		writeString(b);
+		out.writeInt(rights);
+	}
+
+	public synchronized void removeFriend(String id) throws IOException
+	{
+		byte[] b = encode(id);
+		friends.remove(id);
+		begin(UNFRIEND);
+		writeString(b);
+	}
+
+	public synchronized void putDisplayName(String id, String name) throws IOException
+	{
+		byte[] i = encode(id);
+		byte[] n = encode(name);
+		displayNames.put(id, name);
+		begin(DISPLAY_NAME);
+		writeString(i);
+		writeString(n);
+	}
+
+	/** Pushes the records appended so far to disk; call after each batch of updates. */
+	public synchronized void flush() throws IOException
+	{
+		out.flush();
+		if (records > 64 && records > 2 * live())
+			rewrite();
+	}
+
+	/** Forgets the session, e.g. on log off. */
+	public synchronized void clear() throws IOException
+	{
+		grid = null;
+		regionName = null;
+		regionHandle = 0;
+		folders.clear();
+		friends.clear();
+		displayNames.clear();
+		rewrite();
+	}
+
+	public synchronized void close() throws IOException
+	{
+		out.close();
+	}
+
+	private int live()
+	{
+		return (grid != null ? 1 : 0) + (regionName != null ? 1 : 0)
+			+ folders.size() + friends.size() + displayNames.size();
+	}
+
+	private void begin(byte tag) throws IOException
+	{
+		out.writeByte(tag);
+		records++;
+	}
+
+	/**
+	 * Checks a string before anything of its record is written or kept, so a
+	 * bad argument cannot leave half a record in the middle of the file.
+	 */
+	private static byte[] encode(String s) throws UnsupportedEncodingException
+	{
+		if (s == null)
+			throw new IllegalArgumentException("null string");
+		byte[] b = s.getBytes("UTF-8");
+		if (b.length > 0xffff)
+			throw new IllegalArgumentException("string of " + b.length + " bytes is too long");
+		return b;
+	}
+
+	private void writeString(byte[] b) throws IOException
+	{
+		out.writeShort(b.length);
+		out.write(b);
+	}
+
+	/** Replays the file and returns the length of its intact prefix. */
+	private long load() throws IOException
+	{
+		if (!file.exists() || file.length() < HEADER)
+			return 0;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		MappedByteBuffer buf;
+		try {
+			buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		} finally {
+			raf.close();
+		}
+		if (buf.getInt() != MAGIC || buf.get() != VERSION)
+			return 0;
+
+		int valid = buf.position();
+		try {
+			while (buf.hasRemaining()) {
+				byte tag = buf.get();
+				switch (tag) {
+				case GRID:
+					grid = readString(buf);
+					break;
+				case REGION:
+					// only take the record once all of it has been read
+					String region = readString(buf);
+					long handle = buf.getLong();
+					regionName = region;
+					regionHandle = handle;
+					break;
+				case FOLDER:
+					String id = readString(buf);
+					String parent = readString(buf);
+					String name = readString(buf);
+					if (parent.length() == 0)
+						parent = null; // a root folder
+					folders.put(id, new Folder(id, parent, name, buf.get()));
+					break;
+				case FRIEND:
+					String friend = readString(buf);
+					friends.put(friend, buf.getInt());
+					break;
+				case UNFRIEND:
+					friends.remove(readString(buf));
+					break;
+				case DISPLAY_NAME:
+					String agent = readString(buf);
+					displayNames.put(agent, readString(buf));
+					break;
+				default:
+					return valid;
+				}
+				records++;
+				valid = buf.position();
+			}
+		} catch (BufferUnderflowException e) {
+			// the last record was only partly written
+		}
+		return valid;
+	}
+
+	private static String readString(MappedByteBuffer buf) throws UnsupportedEncodingException
+	{
+		byte[] b = new byte[buf.getShort() & 0xffff];
+		buf.get(b);
+		return new String(b, "UTF-8");
+	}
+
+	/** Writes only the live records to a fresh file and swaps it in. */
+	private void rewrite() throws IOException
+	{
+		if (out != null)
+			out.close();
+		File tmp = new File(file.getPath() + ".tmp");
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		records = 0;
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+		if (grid != null)
+			setGrid(grid);
+		if (regionName != null)
+			setRegion(regionName, regionHandle);
+		for (Folder f : new HashMap<String, Folder>(folders).values())
+			putFolder(f.id, f.parent, f.name, f.type);
+		for (Map.Entry<String, Integer> e : new HashMap<String, Integer>(friends).entrySet())
+			putFriend(e.getKey(), e.getValue());
+		for (Map.Entry<String, String> e : new HashMap<String, String>(displayNames).entrySet())
+			putDisplayName(e.getKey(), e.getValue());
+		out.close();
+		if (!tmp.renameTo(file))
+			throw new IOException("could not replace " + file);
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+	}
+}
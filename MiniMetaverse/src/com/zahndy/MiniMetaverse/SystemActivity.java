@@ -1,5 +1,7 @@
 package com.zahndy.MiniMetaverse;
 
+import java.io.IOException;
+
 import com.zahndy.MiniMetaverse.R;
 
 import android.app.Activity;
@@ -32,6 +34,7 @@ public class SystemActivity extends Activity {
         final Button logout = (Button)findViewById(R.id.logoff);
         logout.setOnClickListener(new View.OnClickListener() {
             public void onClick(View v) {
+            	forgetSession();
             	ChatActivity.print("System: Logged out");
             	switchTabInActivity(1);
             }
@@ -44,6 +47,18 @@ public class SystemActivity extends Activity {
     	android.os.Process.killProcess(android.os.Process.myPid());
     }
     
+    void forgetSession()
+    {
+    	SessionCache session = MiniMetaverse.getSession();
+    	if (session == null)
+    		return;
+    	try {
+    		session.clear();
+    	} catch (IOException e) {
+    		ChatActivity.print("System: could not clear session cache");
+    	}
+    }
+    
     public void switchTabInActivity(int indexTabToSwitchTo){
     	MiniMetaverse ta = (MiniMetaverse) this.getParent();
     	TabHost th = ta.getMyTabHost();
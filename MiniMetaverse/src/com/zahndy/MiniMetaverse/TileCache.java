@@ -0,0 +1,100 @@
+package com.zahndy.MiniMetaverse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+
+/**
+ * Decoded region map tiles, least recently used first. The cache owns a fixed
+ * number of tile bitmaps; an evicted tile's bitmap is handed to the next tile
+ * that arrives instead of being thrown away.
+ *
+ * Downloading and decoding happen on a worker thread through decode(); the
+ * cache itself is only touched on the UI thread, so a pooled bitmap is never
+ * repainted while it is being drawn.
+ */
+public class TileCache {
+
+	public static final int TILE_SIZE = 256;
+
+	private final int capacity;
+	private final LinkedHashMap<Long, Bitmap> tiles = new LinkedHashMap<Long, Bitmap>(16, 0.75f, true);
+	private final ArrayList<Bitmap> free = new ArrayList<Bitmap>();
+
+	private final BitmapFactory.Options options = new BitmapFactory.Options();
+	private final Rect dst = new Rect(0, 0, TILE_SIZE, TILE_SIZE);
+
+	public TileCache(int capacity)
+	{
+		this.capacity = capacity;
+		options.inPreferredConfig = Bitmap.Config.RGB_565;
+		options.inTempStorage = new byte[16 * 1024];
+	}
+
+	/**
+	 * Decodes a map tile image (e.g. map-1-X-Y-objects.jpg). May be called on
+	 * any thread; the result is handed to {@link #put} on the UI thread.
+	 */
+	public Bitmap decode(InputStream image) throws IOException
+	{
+		Bitmap decoded;
+		synchronized (options) { // guards the shared temp storage only
+			decoded = BitmapFactory.decodeStream(image, null, options);
+		}
+		if (decoded == null)
+			throw new IOException("could not decode map tile");
+		return decoded;
+	}
+
+	/** Must be called on the UI thread. */
+	public Bitmap get(long handle)
+	{
+		return tiles.get(handle);
+	}
+
+	/**
+	 * Stores a tile from {@link #decode} for the given region. Must be called
+	 * on the UI thread; the decoded bitmap is recycled.
+	 */
+	public Bitmap put(long handle, Bitmap decoded)
+	{
+		Bitmap tile = tiles.remove(handle);
+		if (tile == null)
+			tile = obtain();
+		// BitmapFactory cannot decode into an existing bitmap before Honeycomb,
+		// so copy into the pooled one and release the decoded pixels right away
+		new Canvas(tile).drawBitmap(decoded, null, dst, null);
+		decoded.recycle();
+
+		tiles.put(handle, tile);
+		return tile;
+	}
+
+	/** Must be called on the UI thread. */
+	public void clear()
+	{
+		free.addAll(tiles.values());
+		tiles.clear();
+	}
+
+	private Bitmap obtain()
+	{
+		if (tiles.size() >= capacity) {
+			Iterator<Map.Entry<Long, Bitmap>> eldest = tiles.entrySet().iterator();
+			Bitmap b = eldest.next().getValue();
+			eldest.remove();
+			return b;
+		}
+		if (!free.isEmpty())
+			return free.remove(free.size() - 1);
+		return Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.RGB_565);
+	}
+}
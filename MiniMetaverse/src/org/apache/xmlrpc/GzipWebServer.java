@@ -0,0 +1,466 @@
+package org.apache.xmlrpc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.EmptyStackException;
+import java.util.Stack;
+import java.util.StringTokenizer;
+import java.util.Vector;
+
+/**
+ * A WebServer that reads gzip or deflate compressed requests and gzips its
+ * replies for clients that send Accept-Encoding: gzip. Meant for local
+ * stand-ins of the login and capability services.
+ *
+ * The connection handling of WebServer is private, so this class runs its
+ * own listener loop and runner pool on top of the same handlers, access
+ * rules, thread group and limits, and answers like WebServer does (basic
+ * authentication, 401, keep-alive only when XmlRpc.getKeepAlive() is set).
+ */
+public class GzipWebServer extends WebServer
+{
+    protected static final byte[] gzipped = toHTTPBytes("Content-Encoding: gzip\r\n");
+    protected static final byte[] badRequest = toHTTPBytes(" 400 Bad Request\r\n");
+    protected static final byte[] unauthorized = toHTTPBytes(" 401 Unauthorized\r\n");
+    protected static final byte[] unsupported = toHTTPBytes(" 415 Unsupported Media Type\r\n");
+
+    private int port;
+    private InetAddress address;
+
+    /** idle GzipRunners */
+    private Stack pool = new Stack();
+
+    /** GzipConnections being served, closed on shutdown */
+    private Vector connections = new Vector();
+
+    public GzipWebServer(int port)
+    {
+        this(port, null);
+    }
+
+    public GzipWebServer(int port, InetAddress addr)
+    {
+        this(port, addr, new XmlRpcServer());
+    }
+
+    public GzipWebServer(int port, InetAddress addr, XmlRpcServer xmlrpc)
+    {
+        super(port, addr, xmlrpc);
+        this.port = port;
+        this.address = addr;
+    }
+
+    public void run()
+    {
+        try
+        {
+            serverSocket = createServerSocket(port, 50, address);
+            // check every now and then whether we have been shut down
+            serverSocket.setSoTimeout(4096);
+            while (listener != null)
+            {
+                try
+                {
+                    Socket socket = serverSocket.accept();
+                    try
+                    {
+                        socket.setTcpNoDelay(true);
+                        if (allowConnection(socket))
+                        {
+                            getGzipRunner().handle(socket);
+                        }
+                        else
+                        {
+                            socket.close();
+                        }
+                    }
+                    catch (RuntimeException overload)
+                    {
+                        socket.close();
+                        throw overload;
+                    }
+                }
+                catch (InterruptedIOException checkState)
+                {
+                    // timeout while waiting for a client, check listener
+                }
+                catch (Exception ex)
+                {
+                    System.err.println("Exception in XML-RPC listener loop ("
+                            + ex + ").");
+                }
+            }
+        }
+        catch (Exception exception)
+        {
+            System.err.println("Error accepting XML-RPC connections ("
+                    + exception + ").");
+        }
+        finally
+        {
+            if (serverSocket != null)
+            {
+                try
+                {
+                    serverSocket.close();
+                }
+                catch (IOException ignore)
+                {
+                }
+                serverSocket = null;
+            }
+            closeConnections();
+        }
+    }
+
+    /**
+     * Stops the listener, closes open connections and ends the idle runner
+     * threads, so no keep-alive connection outlives the server.
+     */
+    public synchronized void shutdown()
+    {
+        super.shutdown();
+        closeConnections();
+    }
+
+    private void closeConnections()
+    {
+        synchronized (connections)
+        {
+            for (int i = 0; i < connections.size(); i++)
+            {
+                ((GzipConnection) connections.elementAt(i)).close();
+            }
+        }
+        runners.interrupt();
+    }
+
+    protected GzipRunner getGzipRunner()
+    {
+        try
+        {
+            return (GzipRunner) pool.pop();
+        }
+        catch (EmptyStackException empty)
+        {
+            if (runners.activeCount() > 255)
+            {
+                throw new RuntimeException("System overload");
+            }
+            return new GzipRunner();
+        }
+    }
+
+    void releaseGzipRunner(GzipRunner runner)
+    {
+        pool.push(runner);
+    }
+
+    class GzipRunner implements Runnable
+    {
+        Thread thread;
+        GzipConnection con;
+        int count;
+
+        public synchronized void handle(Socket socket) throws IOException
+        {
+            con = new GzipConnection(socket);
+            count = 0;
+            if (thread == null || !thread.isAlive())
+            {
+                thread = new Thread(runners, this);
+                thread.start();
+            }
+            else
+            {
+                notify();
+            }
+        }
+
+        public void run()
+        {
+            while (con != null && Thread.currentThread() == thread)
+            {
+                con.run();
+                count++;
+                con = null;
+
+                if (count > 200 || pool.size() > 20 || listener == null)
+                {
+                    return;
+                }
+                synchronized (this)
+                {
+                    releaseGzipRunner(this);
+                    try
+                    {
+                        wait();
+                    }
+                    catch (InterruptedException ir)
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }
+    }
+
+    class GzipConnection implements Runnable
+    {
+        private Socket socket;
+        private BufferedInputStream input;
+        private BufferedOutputStream output;
+        private byte[] buffer;
+        private String user;
+        private String password;
+
+        GzipConnection(Socket socket) throws IOException
+        {
+            // set read timeout to 30 seconds, as WebServer does
+            socket.setSoTimeout(30000);
+            this.socket = socket;
+            input = new BufferedInputStream(socket.getInputStream());
+            output = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        public void run()
+        {
+            connections.addElement(this);
+            try
+            {
+                while (listener != null && handle())
+                {
+                }
+            }
+            catch (IOException ignore)
+            {
+                // client went away, timed out or the server was shut down
+            }
+            catch (Exception x)
+            {
+                if (XmlRpc.debug)
+                {
+                    x.printStackTrace();
+                }
+            }
+            finally
+            {
+                connections.removeElement(this);
+                close();
+            }
+        }
+
+        void close()
+        {
+            try
+            {
+                socket.close();
+            }
+            catch (IOException ignore)
+            {
+            }
+        }
+
+        /** Serves one request, returns whether to keep the connection open. */
+        private boolean handle() throws Exception
+        {
+            user = null;
+            password = null;
+            String line = readLine();
+            // skip an empty line left over from the previous request
+            if (line != null && line.length() == 0)
+            {
+                line = readLine();
+            }
+            if (line == null)
+            {
+                return false;
+            }
+            StringTokenizer tokens = new StringTokenizer(line);
+            String method = tokens.hasMoreTokens() ? tokens.nextToken() : "";
+            if (tokens.hasMoreTokens())
+            {
+                tokens.nextToken(); // uri
+            }
+            String httpVersion = tokens.hasMoreTokens() ? tokens.nextToken() : "HTTP/1.0";
+            boolean keepAlive = XmlRpc.getKeepAlive() && "HTTP/1.1".equals(httpVersion);
+
+            int contentLength = -1;
+            boolean badLength = false;
+            String contentEncoding = null;
+            String acceptEncoding = null;
+            while ((line = readLine()) != null && line.length() > 0)
+            {
+                int colon = line.indexOf(':');
+                if (colon < 0)
+                {
+                    continue;
+                }
+                String name = line.substring(0, colon).trim().toLowerCase();
+                String value = line.substring(colon + 1).trim();
+                if (name.equals("content-length"))
+                {
+                    try
+                    {
+                        contentLength = Integer.parseInt(value);
+                    }
+                    catch (NumberFormatException x)
+                    {
+                        badLength = true;
+                    }
+                }
+                else if (name.equals("content-encoding"))
+                {
+                    contentEncoding = value;
+                }
+                else if (name.equals("accept-encoding"))
+                {
+                    acceptEncoding = value;
+                }
+                else if (name.equals("connection"))
+                {
+                    keepAlive = XmlRpc.getKeepAlive()
+                            && value.toLowerCase().indexOf("keep-alive") > -1;
+                }
+                else if (name.equals("authorization"))
+                {
+                    parseAuth(value);
+                }
+            }
+
+            if (!"POST".equalsIgnoreCase(method))
+            {
+                writeError(httpVersion, badRequest, "Method " + method
+                        + " not implemented (try POST)", false);
+                return false;
+            }
+            if (badLength || contentLength < 0)
+            {
+                writeError(httpVersion, badRequest, "Missing or invalid Content-Length", false);
+                return false;
+            }
+            if (!HttpCompression.supports(contentEncoding))
+            {
+                writeError(httpVersion, unsupported, "Content-Encoding "
+                        + contentEncoding + " not supported", false);
+                return false;
+            }
+
+            ServerInputStream body = new ServerInputStream(input, contentLength);
+            byte[] response;
+            try
+            {
+                InputStream in = HttpCompression.decode(body, contentEncoding);
+                response = xmlrpc.execute(in, user, password);
+            }
+            catch (AuthenticationFailed x)
+            {
+                writeError(httpVersion, unauthorized, "Method "
+                        + method + " requires a valid user name and password", true);
+                return false;
+            }
+            // read whatever the parser left so the next request lines up
+            byte[] rest = new byte[512];
+            while (body.read(rest, 0, rest.length) > 0)
+            {
+            }
+
+            boolean gzip = response.length >= HttpCompression.MIN_SIZE
+                    && HttpCompression.accepts(acceptEncoding, "gzip");
+            if (gzip)
+            {
+                response = HttpCompression.gzip(response);
+            }
+
+            output.write(toHTTPBytes(httpVersion));
+            output.write(ok);
+            output.write(server);
+            output.write(keepAlive ? conkeep : conclose);
+            output.write(ctype);
+            if (gzip)
+            {
+                output.write(gzipped);
+            }
+            output.write(clength);
+            output.write(toHTTPBytes(Integer.toString(response.length)));
+            output.write(doubleNewline);
+            output.write(response);
+            output.flush();
+            return keepAlive;
+        }
+
+        private void writeError(String httpVersion, byte[] status, String message,
+                boolean authenticate) throws IOException
+        {
+            byte[] text = toHTTPBytes(message);
+            output.write(toHTTPBytes(httpVersion));
+            output.write(status);
+            output.write(server);
+            output.write(conclose);
+            if (authenticate)
+            {
+                output.write(wwwAuthenticate);
+            }
+            output.write(clength);
+            output.write(toHTTPBytes(Integer.toString(text.length)));
+            output.write(doubleNewline);
+            output.write(text);
+            output.flush();
+        }
+
+        private void parseAuth(String value)
+        {
+            if (!value.toLowerCase().startsWith("basic "))
+            {
+                return;
+            }
+            try
+            {
+                String credentials = new String(Base64.decode(
+                        toHTTPBytes(value.substring(6).trim())));
+                int colon = credentials.indexOf(':');
+                if (colon < 0)
+                {
+                    return;
+                }
+                user = credentials.substring(0, colon);
+                password = credentials.substring(colon + 1);
+            }
+            catch (Throwable ignore)
+            {
+            }
+        }
+
+        private String readLine() throws IOException
+        {
+            if (buffer == null)
+            {
+                buffer = new byte[2048];
+            }
+            int next;
+            int count = 0;
+            for (;;)
+            {
+                next = input.read();
+                if (next < 0 || next == '\n')
+                {
+                    break;
+                }
+                if (next != '\r')
+                {
+                    buffer[count++] = (byte) next;
+                }
+                if (count >= buffer.length)
+                {
+                    throw new IOException("HTTP Header too long");
+                }
+            }
+            return next < 0 && count == 0 ? null : new String(buffer, 0, count);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package org.apache.xmlrpc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.EmptyStackException;
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * An XML-RPC client that asks for gzip or deflate compressed replies and
+ * feeds them to the parser through an inflating stream. Request bodies are
+ * compressed too once the server has shown that it understands gzip; if it
+ * then refuses a compressed request (415, or 400) the call is sent again
+ * uncompressed.
+ */
+public class GzipXmlRpcClient extends XmlRpcClient
+{
+    private String auth;
+
+    public GzipXmlRpcClient(URL url)
+    {
+        super(url);
+    }
+
+    public GzipXmlRpcClient(String url) throws MalformedURLException
+    {
+        super(url);
+    }
+
+    public GzipXmlRpcClient(String hostname, int port) throws MalformedURLException
+    {
+        super(hostname, port);
+    }
+
+    public void setBasicAuthentication(String user, String password)
+    {
+        super.setBasicAuthentication(user, password);
+        if (user == null || password == null)
+        {
+            auth = null;
+        }
+        else
+        {
+            auth = new String(Base64.encode((user + ':' + password)
+                    .getBytes())).trim();
+        }
+    }
+
+    synchronized Worker getWorker(boolean async) throws IOException
+    {
+        try
+        {
+            Worker w = (Worker) pool.pop();
+            if (async)
+            {
+                asyncWorkers++;
+            }
+            else
+            {
+                workers++;
+            }
+            return w;
+        }
+        catch (EmptyStackException x)
+        {
+            if (workers < XmlRpc.getMaxThreads())
+            {
+                if (async)
+                {
+                    asyncWorkers++;
+                }
+                else
+                {
+                    workers++;
+                }
+                return new GzipWorker();
+            }
+            throw new IOException("XML-RPC System overload");
+        }
+    }
+
+    class GzipWorker extends Worker
+    {
+        Object execute(String method, Vector params)
+            throws XmlRpcException, IOException
+        {
+            fault = false;
+            result = null;
+            try
+            {
+                if (buffer == null)
+                {
+                    buffer = new ByteArrayOutputStream();
+                }
+                else
+                {
+                    buffer.reset();
+                }
+                XmlWriter writer = new XmlWriter(buffer, encoding);
+                writeRequest(writer, method, params);
+                writer.flush();
+                byte[] request = buffer.toByteArray();
+
+                boolean compress = request.length >= HttpCompression.MIN_SIZE
+                        && HttpCompression.acceptsGzip(url);
+                HttpURLConnection con = post(request, compress);
+                int status = con.getResponseCode();
+                // only a server that refused the encoding itself has not run
+                // the call, anything else must not be sent a second time
+                if (compress && (status == 415 || status == 400))
+                {
+                    HttpCompression.reject(url);
+                    con.disconnect();
+                    con = post(request, false);
+                    status = con.getResponseCode();
+                }
+                if (status >= 400)
+                {
+                    throw new IOException("HTTP " + status + " "
+                            + con.getResponseMessage());
+                }
+
+                InputStream in = HttpCompression.open(con);
+                try
+                {
+                    parse(in);
+                }
+                finally
+                {
+                    in.close();
+                }
+            }
+            catch (Exception x)
+            {
+                if (XmlRpc.debug)
+                {
+                    x.printStackTrace();
+                }
+                throw new IOException(x.getMessage());
+            }
+
+            if (fault)
+            {
+                XmlRpcException exception = null;
+                try
+                {
+                    Hashtable f = (Hashtable) result;
+                    String faultString = (String) f.get("faultString");
+                    int faultCode = Integer.parseInt(
+                            f.get("faultCode").toString());
+                    exception = new XmlRpcException(faultCode,
+                            faultString.trim());
+                }
+                catch (Exception x)
+                {
+                    throw new XmlRpcException(0, "Invalid fault response");
+                }
+                throw exception;
+            }
+            return result;
+        }
+
+        private HttpURLConnection post(byte[] request, boolean compress)
+            throws IOException
+        {
+            if (compress)
+            {
+                request = HttpCompression.gzip(request);
+            }
+            HttpURLConnection con = (HttpURLConnection) url.openConnection();
+            con.setDoInput(true);
+            con.setDoOutput(true);
+            con.setUseCaches(false);
+            con.setAllowUserInteraction(false);
+            con.setRequestMethod("POST");
+            con.setRequestProperty("Content-Length",
+                    Integer.toString(request.length));
+            con.setRequestProperty("Content-Type", "text/xml");
+            if (compress)
+            {
+                con.setRequestProperty("Content-Encoding", "gzip");
+            }
+            HttpCompression.prepare(con);
+            if (auth != null)
+            {
+                con.setRequestProperty("Authorization", "Basic " + auth);
+            }
+            OutputStream out = con.getOutputStream();
+            out.write(request);
+            out.flush();
+            out.close();
+            return con;
+        }
+    }
+}
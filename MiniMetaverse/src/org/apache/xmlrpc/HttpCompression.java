@@ -0,0 +1,204 @@
+package org.apache.xmlrpc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Hashtable;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * gzip/deflate content coding for XML-RPC and other HTTP traffic (e.g.
+ * capability requests). Bodies are inflated as a stream so the parser can
+ * start before the whole reply has arrived.
+ *
+ * What each host answered with is remembered, so request bodies are only
+ * compressed for hosts that are known to speak gzip.
+ */
+public class HttpCompression
+{
+    public static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    /** Bodies smaller than this are not worth compressing. */
+    public static final int MIN_SIZE = 256;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /** host:port -> Boolean, whether the host sends and accepts gzip */
+    private static Hashtable hosts = new Hashtable();
+
+    /**
+     * Prepares a connection to request a compressed reply.
+     */
+    public static void prepare(HttpURLConnection con)
+    {
+        con.setRequestProperty("Accept-Encoding", ACCEPT_ENCODING);
+    }
+
+    /**
+     * Returns the (possibly inflated) reply body of a connection prepared with
+     * {@link #prepare}, and remembers whether the host gzipped it.
+     */
+    public static InputStream open(HttpURLConnection con) throws IOException
+    {
+        InputStream in = con.getInputStream();
+        String coding = con.getContentEncoding();
+        String host = key(con.getURL());
+        if (coding != null && !hosts.containsKey(host))
+        {
+            // a host that only sends deflate has not shown it reads gzip
+            String c = coding.trim().toLowerCase();
+            if (c.equals("gzip") || c.equals("x-gzip"))
+            {
+                hosts.put(host, Boolean.TRUE);
+            }
+        }
+        return decode(in, coding);
+    }
+
+    /**
+     * Whether {@link #decode} can read a body in the given content coding.
+     */
+    public static boolean supports(String coding)
+    {
+        if (coding == null)
+        {
+            return true;
+        }
+        coding = coding.trim().toLowerCase();
+        return coding.length() == 0 || coding.equals("identity")
+                || coding.equals("gzip") || coding.equals("x-gzip")
+                || coding.equals("deflate");
+    }
+
+    /**
+     * Wraps a body in a stream that inflates the given content coding.
+     */
+    public static InputStream decode(InputStream in, String coding)
+        throws IOException
+    {
+        if (coding == null)
+        {
+            return in;
+        }
+        coding = coding.trim().toLowerCase();
+        if (coding.length() == 0 || coding.equals("identity"))
+        {
+            return in;
+        }
+        if (coding.equals("gzip") || coding.equals("x-gzip"))
+        {
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        }
+        if (coding.equals("deflate"))
+        {
+            // "deflate" should be zlib wrapped, but some servers send it raw
+            PushbackInputStream pb = new PushbackInputStream(in, 2);
+            int b0 = pb.read();
+            int b1 = pb.read();
+            if (b1 >= 0)
+            {
+                pb.unread(b1);
+            }
+            if (b0 >= 0)
+            {
+                pb.unread(b0);
+            }
+            boolean zlib = (b0 & 0x0f) == 8 && ((b0 << 8) | b1) % 31 == 0;
+            final Inflater inflater = new Inflater(!zlib);
+            return new InflaterInputStream(pb, inflater, BUFFER_SIZE)
+            {
+                public void close() throws IOException
+                {
+                    super.close();
+                    inflater.end();
+                }
+            };
+        }
+        throw new IOException("Unsupported content encoding: " + coding);
+    }
+
+    /**
+     * gzips a request or response body.
+     */
+    public static byte[] gzip(byte[] body) throws IOException
+    {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(body.length / 4 + 64);
+        GZIPOutputStream out = new GZIPOutputStream(buffer, BUFFER_SIZE);
+        out.write(body);
+        out.close();
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Whether an Accept-Encoding header allows the given coding.
+     */
+    public static boolean accepts(String acceptEncoding, String coding)
+    {
+        if (acceptEncoding == null)
+        {
+            return false;
+        }
+        String[] items = acceptEncoding.toLowerCase().split(",");
+        for (int i = 0; i < items.length; i++)
+        {
+            String item = items[i].trim();
+            int semi = item.indexOf(';');
+            String name = semi < 0 ? item : item.substring(0, semi).trim();
+            if (name.equals(coding) || name.equals("*"))
+            {
+                return semi < 0 || quality(item.substring(semi + 1)) > 0;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether the host has sent us gzipped replies, so it will most likely
+     * take a compressed request too.
+     */
+    public static boolean acceptsGzip(URL url)
+    {
+        return Boolean.TRUE.equals(hosts.get(key(url)));
+    }
+
+    /**
+     * Stops compressing requests to a host, e.g. after it failed to read one.
+     */
+    public static void reject(URL url)
+    {
+        hosts.put(key(url), Boolean.FALSE);
+    }
+
+    private static double quality(String params)
+    {
+        String[] p = params.split(";");
+        for (int i = 0; i < p.length; i++)
+        {
+            String param = p[i].trim();
+            if (param.startsWith("q="))
+            {
+                try
+                {
+                    return Double.parseDouble(param.substring(2).trim());
+                }
+                catch (NumberFormatException x)
+                {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    private static String key(URL url)
+    {
+        int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+        return url.getHost().toLowerCase() + ':' + port;
+    }
+}